@@ -0,0 +1,51 @@
+// Copyright © LFV
+package se.lfv.reqstool.gradle;
+
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+
+/**
+ * Assembles the ZIP artifact of one dataset in a Gradle worker. Gradle runs the work
+ * items submitted by the assemble tasks of a project concurrently, up to
+ * {@code --max-workers}, also without {@code --parallel}.
+ */
+public abstract class AssembleRequirementsAction implements WorkAction<AssembleRequirementsAction.Parameters> {
+
+	public interface Parameters extends WorkParameters {
+
+		RegularFileProperty getRequirementsAnnotationsFile();
+
+		RegularFileProperty getSvcsAnnotationsFile();
+
+		RegularFileProperty getOutputDirectory();
+
+		RegularFileProperty getDatasetPath();
+
+		ListProperty<String> getTestResults();
+
+		Property<Boolean> getSkipAssembleZipArtifact();
+
+		Property<String> getProjectName();
+
+		Property<String> getProjectVersion();
+
+		Property<File> getProjectBasedir();
+
+		RegularFileProperty getZipFile();
+
+		Property<RequirementsToolService> getRequirementsToolService();
+
+	}
+
+	@Override
+	public void execute() {
+		RequirementsToolService service = getParameters().getRequirementsToolService().get();
+		new ZipArtifactAssembler(getParameters(), service.getProgressLoggerFactory()).assemble();
+	}
+
+}
@@ -0,0 +1,64 @@
+// Copyright © LFV
+package se.lfv.reqstool.gradle;
+
+import org.gradle.api.Named;
+import org.gradle.api.Project;
+import org.gradle.api.file.RegularFileProperty;
+
+import java.io.File;
+
+/**
+ * A named dataset (product variant) declared in {@code requirementsTool.datasets}. Each
+ * dataset gets its own assemble task, ZIP artifact and publication, while annotations and
+ * test results default to the values shared on {@link RequirementsToolExtension}.
+ */
+public class RequirementsToolDataset implements Named {
+
+	private final String name;
+
+	private final RegularFileProperty requirementsAnnotationsFile;
+
+	private final RegularFileProperty svcsAnnotationsFile;
+
+	private final RegularFileProperty outputDirectory;
+
+	private final RegularFileProperty datasetPath;
+
+	public RequirementsToolDataset(String name, Project project, RequirementsToolExtension extension) {
+		this.name = name;
+		this.requirementsAnnotationsFile = project.getObjects().fileProperty();
+		this.svcsAnnotationsFile = project.getObjects().fileProperty();
+		this.outputDirectory = project.getObjects().fileProperty();
+		this.datasetPath = project.getObjects().fileProperty();
+
+		// Annotations are shared between datasets unless overridden
+		this.requirementsAnnotationsFile.convention(extension.getRequirementsAnnotationsFile());
+		this.svcsAnnotationsFile.convention(extension.getSvcsAnnotationsFile());
+		this.outputDirectory.convention(project.getObjects()
+			.fileProperty()
+			.fileProvider(extension.getOutputDirectory().map(d -> new File(d.getAsFile(), name))));
+		this.datasetPath.convention(project.getLayout().getProjectDirectory().file("reqstool/" + name));
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	public RegularFileProperty getRequirementsAnnotationsFile() {
+		return requirementsAnnotationsFile;
+	}
+
+	public RegularFileProperty getSvcsAnnotationsFile() {
+		return svcsAnnotationsFile;
+	}
+
+	public RegularFileProperty getOutputDirectory() {
+		return outputDirectory;
+	}
+
+	public RegularFileProperty getDatasetPath() {
+		return datasetPath;
+	}
+
+}
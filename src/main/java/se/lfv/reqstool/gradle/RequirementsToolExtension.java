@@ -1,6 +1,8 @@
 // Copyright © LFV
 package se.lfv.reqstool.gradle;
 
+import org.gradle.api.Action;
+import org.gradle.api.NamedDomainObjectContainer;
 import org.gradle.api.Project;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.ListProperty;
@@ -30,6 +32,8 @@ public class RequirementsToolExtension {
 
 	private final Property<Boolean> skipAttachZipArtifact;
 
+	private final NamedDomainObjectContainer<RequirementsToolDataset> datasets;
+
 	public RequirementsToolExtension(Project project) {
 		this.requirementsAnnotationsFile = project.getObjects().fileProperty();
 		this.svcsAnnotationsFile = project.getObjects().fileProperty();
@@ -39,6 +43,9 @@ public class RequirementsToolExtension {
 		this.skip = project.getObjects().property(Boolean.class);
 		this.skipAssembleZipArtifact = project.getObjects().property(Boolean.class);
 		this.skipAttachZipArtifact = project.getObjects().property(Boolean.class);
+		this.datasets = project.getObjects()
+			.domainObjectContainer(RequirementsToolDataset.class,
+					name -> new RequirementsToolDataset(name, project, this));
 
 		// Set defaults matching
 		this.requirementsAnnotationsFile.convention(project.getLayout()
@@ -94,4 +101,12 @@ public class RequirementsToolExtension {
 		return skipAttachZipArtifact;
 	}
 
+	public NamedDomainObjectContainer<RequirementsToolDataset> getDatasets() {
+		return datasets;
+	}
+
+	public void datasets(Action<? super NamedDomainObjectContainer<RequirementsToolDataset>> action) {
+		action.execute(datasets);
+	}
+
 }
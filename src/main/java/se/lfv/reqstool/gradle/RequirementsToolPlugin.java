@@ -3,71 +3,124 @@ package se.lfv.reqstool.gradle;
 
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
-import org.gradle.api.Task;
-import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.publish.PublishingExtension;
 import org.gradle.api.publish.maven.MavenPublication;
+import org.gradle.api.publish.maven.tasks.AbstractPublishToMaven;
 import org.gradle.api.tasks.TaskProvider;
 
+import java.util.List;
+import java.util.stream.Collectors;
+
 /**
  * Gradle plugin for assembling and attaching reqstool ZIP artifacts. Mimics the behavior
  * of the reqstool-maven-plugin.
  */
 public class RequirementsToolPlugin implements Plugin<Project> {
 
+	private static final String TASK_NAME = "assembleRequirements";
+
+	private static final String PUBLICATION_NAME = "reqstool";
+
 	@Override
 	public void apply(Project project) {
 		// Create extension for configuration
 		RequirementsToolExtension extension = project.getExtensions()
 			.create("requirementsTool", RequirementsToolExtension.class, project);
 
-		// Register the assembleRequirements task
+		// Shared by all assemble tasks, common inputs are parsed and discovered once
+		Provider<RequirementsToolService> service = project.getGradle()
+			.getSharedServices()
+			.registerIfAbsent("reqstool", RequirementsToolService.class, spec -> {
+			});
+
+		Provider<List<String>> datasetTaskNames = project.provider(() -> extension.getDatasets()
+			.stream()
+			.map(RequirementsToolPlugin::datasetTaskName)
+			.collect(Collectors.toList()));
+
+		// Register the assembleRequirements task, once datasets are declared it only
+		// assembles those instead of the default dataset
 		TaskProvider<RequirementsToolTask> assembleTask = project.getTasks()
-			.register("assembleRequirements", RequirementsToolTask.class, task -> {
-				task.setGroup("build");
+			.register(TASK_NAME, RequirementsToolTask.class, task -> {
 				task.setDescription("Assembles reqstool ZIP artifact with requirements annotations and test results");
+				task.dependsOn(datasetTaskNames);
+				task.onlyIf(t -> datasetTaskNames.get().isEmpty());
 
-				// Configure task inputs from extension
 				task.getRequirementsAnnotationsFile().set(extension.getRequirementsAnnotationsFile());
 				task.getSvcsAnnotationsFile().set(extension.getSvcsAnnotationsFile());
 				task.getOutputDirectory().set(extension.getOutputDirectory());
 				task.getDatasetPath().set(extension.getDatasetPath());
-				task.getTestResults().set(extension.getTestResults());
-				task.getSkip().set(extension.getSkip());
-				task.getSkipAssembleZipArtifact().set(extension.getSkipAssembleZipArtifact());
-				task.getSkipAttachZipArtifact().set(extension.getSkipAttachZipArtifact());
 				task.getProjectName().set(project.getName());
-				task.getProjectVersion().set(project.provider(() -> String.valueOf(project.getVersion())));
-				task.getProjectBasedir().set(project.getProjectDir());
-
-				// Configure ZIP output file
-				String archiveBaseName = project.hasProperty("archivesBaseName")
-						? String.valueOf(project.property("archivesBaseName")) : project.getName();
-				String zipFileName = archiveBaseName + "-reqstool.zip";
-				task.getZipFile()
-					.set(extension.getOutputDirectory()
-						.map(dir -> project.getLayout()
-							.getProjectDirectory()
-							.file(dir.getAsFile().getPath() + "/" + zipFileName)));
+
+				configureTask(project, extension, service, task, archiveBaseName(project) + "-reqstool.zip");
 			});
 
+		// Register one assemble task per dataset declared in requirementsTool.datasets
+		extension.getDatasets().all(dataset -> {
+			project.getTasks().register(datasetTaskName(dataset), RequirementsToolTask.class, task -> {
+				task.setDescription("Assembles reqstool ZIP artifact for the " + dataset.getName() + " dataset");
+
+				task.getRequirementsAnnotationsFile().set(dataset.getRequirementsAnnotationsFile());
+				task.getSvcsAnnotationsFile().set(dataset.getSvcsAnnotationsFile());
+				task.getOutputDirectory().set(dataset.getOutputDirectory());
+				task.getDatasetPath().set(dataset.getDatasetPath());
+				task.getProjectName().set(project.getName() + "-" + dataset.getName());
+
+				configureTask(project, extension, service, task,
+						archiveBaseName(project) + "-" + dataset.getName() + "-reqstool.zip");
+			});
+		});
+
 		// Auto-configure Maven publishing if maven-publish plugin is applied
 		project.getPlugins().withId("maven-publish", plugin -> {
-			configureMavenPublishing(project, assembleTask);
+			MavenPublication defaultPublication = configureMavenPublishing(project, PUBLICATION_NAME, project.getName(),
+					assembleTask);
+
+			// Created eagerly for build scripts to configure, but the default dataset is
+			// not published once datasets are declared
+			project.getTasks()
+				.withType(AbstractPublishToMaven.class)
+				.configureEach(task -> task
+					.onlyIf(t -> task.getPublication() != defaultPublication || extension.getDatasets().isEmpty()));
+
+			extension.getDatasets().all(dataset -> {
+				configureMavenPublishing(project, PUBLICATION_NAME + capitalize(dataset.getName()),
+						project.getName() + "-" + dataset.getName(),
+						project.getTasks().named(datasetTaskName(dataset), RequirementsToolTask.class));
+			});
 		});
 	}
 
-	private void configureMavenPublishing(Project project, TaskProvider<RequirementsToolTask> assembleTask) {
-		PublishingExtension publishing = project.getExtensions().getByType(PublishingExtension.class);
+	private void configureTask(Project project, RequirementsToolExtension extension,
+			Provider<RequirementsToolService> service, RequirementsToolTask task, String zipFileName) {
+		task.setGroup("build");
 
-		publishing.getPublications().create("reqstool", MavenPublication.class, publication -> {
-			String archiveBaseName = project.hasProperty("archivesBaseName")
-					? String.valueOf(project.property("archivesBaseName")) : project.getName();
+		// Configure task inputs from extension
+		task.getTestResults().set(extension.getTestResults());
+		task.getSkip().set(extension.getSkip());
+		task.getSkipAssembleZipArtifact().set(extension.getSkipAssembleZipArtifact());
+		task.getSkipAttachZipArtifact().set(extension.getSkipAttachZipArtifact());
+		task.getProjectVersion().set(project.provider(() -> String.valueOf(project.getVersion())));
+		task.getProjectBasedir().set(project.getProjectDir());
+		task.getRequirementsToolService().set(service);
+		task.usesService(service);
 
-			String zipFileName = archiveBaseName + "-reqstool.zip";
+		// Configure ZIP output file
+		task.getZipFile()
+			.set(task.getOutputDirectory()
+				.map(dir -> project.getLayout()
+					.getProjectDirectory()
+					.file(dir.getAsFile().getPath() + "/" + zipFileName)));
+	}
+
+	private MavenPublication configureMavenPublishing(Project project, String publicationName, String artifactId,
+			TaskProvider<RequirementsToolTask> assembleTask) {
+		PublishingExtension publishing = project.getExtensions().getByType(PublishingExtension.class);
 
+		return publishing.getPublications().create(publicationName, MavenPublication.class, publication -> {
 			publication.setGroupId(String.valueOf(project.getGroup()));
-			publication.setArtifactId(project.getName());
+			publication.setArtifactId(artifactId);
 			publication.setVersion(String.valueOf(project.getVersion()));
 
 			publication.artifact(assembleTask.flatMap(task -> task.getZipFile()), artifact -> {
@@ -77,4 +130,19 @@ public class RequirementsToolPlugin implements Plugin<Project> {
 		});
 	}
 
+	private static String archiveBaseName(Project project) {
+		if (project.hasProperty("archivesBaseName")) {
+			return String.valueOf(project.property("archivesBaseName"));
+		}
+		return project.getName();
+	}
+
+	private static String datasetTaskName(RequirementsToolDataset dataset) {
+		return TASK_NAME + capitalize(dataset.getName());
+	}
+
+	private static String capitalize(String name) {
+		return name.isEmpty() ? name : Character.toUpperCase(name.charAt(0)) + name.substring(1);
+	}
+
 }
@@ -0,0 +1,91 @@
+// Copyright © LFV
+package se.lfv.reqstool.gradle;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.internal.logging.progress.ProgressLoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Build service shared by all reqstool assemble tasks in a build. Parses each annotations
+ * file once, so that several datasets built from the same inputs do not repeat that work.
+ * <p>
+ * Parsed annotations are keyed on the file's path, size and modification time, so a file
+ * rewritten during the build is parsed again. A failed parse is not kept, the next task
+ * reading the file tries again. Test results are not shared, each task walks the tree
+ * itself when it runs.
+ * <p>
+ * The service also carries the progress logger factory from the assemble tasks to their
+ * work actions, which cannot have it injected.
+ */
+public abstract class RequirementsToolService implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+
+	// Parsing only, test results discovery runs on each task's own pipeline threads
+	private static final int PARSER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(PARSER_THREADS,
+			new ZipArtifactAssembler.PipelineThreadFactory());
+
+	private final ConcurrentMap<List<Object>, CompletableFuture<JsonNode>> annotations = new ConcurrentHashMap<>();
+
+	private volatile ProgressLoggerFactory progressLoggerFactory;
+
+	void setProgressLoggerFactory(ProgressLoggerFactory progressLoggerFactory) {
+		this.progressLoggerFactory = progressLoggerFactory;
+	}
+
+	ProgressLoggerFactory getProgressLoggerFactory() {
+		return progressLoggerFactory;
+	}
+
+	/**
+	 * Returns the parsed annotations file, reading it only if it has not been read in its
+	 * current state before.
+	 */
+	CompletableFuture<JsonNode> readAnnotations(File annotationsFile) {
+		File file = annotationsFile.getAbsoluteFile();
+		List<Object> key = Arrays.asList(file, file.length(), file.lastModified());
+
+		CompletableFuture<JsonNode> parsed = new CompletableFuture<>();
+		CompletableFuture<JsonNode> existing = annotations.putIfAbsent(key, parsed);
+		if (existing != null) {
+			return existing;
+		}
+
+		executor.execute(() -> {
+			try {
+				parsed.complete(RequirementsToolTask.yamlMapper().readTree(file));
+			}
+			catch (IOException e) {
+				fail(key, parsed, new UncheckedIOException(e));
+			}
+			catch (RuntimeException e) {
+				fail(key, parsed, e);
+			}
+		});
+		return parsed;
+	}
+
+	private void fail(List<Object> key, CompletableFuture<JsonNode> parsed, RuntimeException failure) {
+		// Forget the failure before anyone sees it, so the next read tries again
+		annotations.remove(key, parsed);
+		parsed.completeExceptionally(failure);
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+}
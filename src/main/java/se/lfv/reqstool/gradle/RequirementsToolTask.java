@@ -4,12 +4,13 @@ package se.lfv.reqstool.gradle;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.fasterxml.jackson.dataformat.yaml.YAMLGenerator;
 import org.gradle.api.DefaultTask;
-import org.gradle.api.GradleException;
 import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
@@ -19,43 +20,35 @@ import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
-import org.yaml.snakeyaml.DumperOptions;
-import org.yaml.snakeyaml.Yaml;
+import org.gradle.internal.logging.progress.ProgressLoggerFactory;
+import org.gradle.workers.WorkerExecutor;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
-import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+
+import javax.inject.Inject;
 
 /**
  * Task for assembling reqstool ZIP artifact. Combines requirements annotations with test
  * annotations and creates a ZIP artifact containing requirements, SVCs, test results, and
  * combined annotations.
  */
-public class RequirementsToolTask extends DefaultTask {
+public abstract class RequirementsToolTask extends DefaultTask {
 
 	// Constants matching Maven plugin
-	private static final String[] OUTPUT_ARTIFACT_TEST_RESULTS_PATTERN = { "test_results/**/*.xml" };
+	static final String[] OUTPUT_ARTIFACT_TEST_RESULTS_PATTERN = { "test_results/**/*.xml" };
 
 	public static final String INPUT_FILE_MANUAL_VERIFICATION_RESULTS_YML = "manual_verification_results.yml";
 
@@ -79,13 +72,6 @@ public class RequirementsToolTask extends DefaultTask {
 
 	protected static final String YAML_LANG_SERVER_SCHEMA_CONFIG = "# yaml-language-server: $schema=https://raw.githubusercontent.com/Luftfartsverket/reqstool-client/main/src/reqstool/resources/schemas/v1/reqstool_config.schema.json";
 
-	private static final ObjectMapper yamlMapper;
-
-	static {
-		yamlMapper = new ObjectMapper(new YAMLFactory().enable(YAMLGenerator.Feature.INDENT_ARRAYS_WITH_INDICATOR));
-		yamlMapper.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
-	}
-
 	private final RegularFileProperty requirementsAnnotationsFile = getProject().getObjects().fileProperty();
 
 	private final RegularFileProperty svcsAnnotationsFile = getProject().getObjects().fileProperty();
@@ -110,6 +96,9 @@ public class RequirementsToolTask extends DefaultTask {
 
 	private final RegularFileProperty zipFile = getProject().getObjects().fileProperty();
 
+	private final Property<RequirementsToolService> requirementsToolService = getProject().getObjects()
+		.property(RequirementsToolService.class);
+
 	@Optional
 	@InputFile
 	public RegularFileProperty getRequirementsAnnotationsFile() {
@@ -179,6 +168,17 @@ public class RequirementsToolTask extends DefaultTask {
 		return zipFile;
 	}
 
+	@Internal
+	public Property<RequirementsToolService> getRequirementsToolService() {
+		return requirementsToolService;
+	}
+
+	@Inject
+	protected abstract ProgressLoggerFactory getProgressLoggerFactory();
+
+	@Inject
+	protected abstract WorkerExecutor getWorkerExecutor();
+
 	@TaskAction
 	public void execute() {
 		if (skip.get()) {
@@ -189,46 +189,60 @@ public class RequirementsToolTask extends DefaultTask {
 		getLogger().debug("Assembling and Attaching Reqstool Gradle Zip Artifact");
 		getLogger().info("testResults: " + Arrays.toString(testResults.get().toArray()));
 
-		try {
-			JsonNode implementationsNode = yamlMapper.createObjectNode();
-			JsonNode testsNode = yamlMapper.createObjectNode();
-
-			File reqAnnotFile = requirementsAnnotationsFile.getAsFile().getOrNull();
-			if (reqAnnotFile != null && reqAnnotFile.exists()) {
-				implementationsNode = yamlMapper.readTree(reqAnnotFile)
-					.path(XML_REQUIREMENT_ANNOTATIONS)
-					.path(XML_IMPLEMENTATIONS);
-			}
+		// Work actions cannot have the progress logger factory injected, so the shared
+		// service hands it over
+		requirementsToolService.get().setProgressLoggerFactory(getProgressLoggerFactory());
 
-			File svcsAnnotFile = svcsAnnotationsFile.getAsFile().getOrNull();
-			if (svcsAnnotFile != null && svcsAnnotFile.exists()) {
-				testsNode = yamlMapper.readTree(svcsAnnotFile).path(XML_REQUIREMENT_ANNOTATIONS).path(XML_TESTS);
-			}
+		// Run in a worker, so that the datasets of a project are assembled concurrently
+		getWorkerExecutor().noIsolation().submit(AssembleRequirementsAction.class, this::configureParameters);
+	}
 
-			JsonNode combinedOutputNode = combineOutput(implementationsNode, testsNode);
+	void configureParameters(AssembleRequirementsAction.Parameters parameters) {
+		parameters.getRequirementsAnnotationsFile().set(requirementsAnnotationsFile);
+		parameters.getSvcsAnnotationsFile().set(svcsAnnotationsFile);
+		parameters.getOutputDirectory().set(outputDirectory);
+		parameters.getDatasetPath().set(datasetPath);
+		parameters.getTestResults().set(testResults);
+		parameters.getSkipAssembleZipArtifact().set(skipAssembleZipArtifact);
+		parameters.getProjectName().set(projectName);
+		parameters.getProjectVersion().set(projectVersion);
+		parameters.getProjectBasedir().set(projectBasedir);
+		parameters.getZipFile().set(zipFile);
+		parameters.getRequirementsToolService().set(requirementsToolService);
+	}
 
-			File outDir = outputDirectory.getAsFile().get();
-			if (!outDir.exists()) {
-				outDir.mkdirs();
-			}
+	static void walkTestResults(Path dir, List<String> patterns, Logger logger, Consumer<Path> consumer) {
+		List<PathMatcher> matchers = patterns.stream()
+			.map(pattern -> FileSystems.getDefault().getPathMatcher("glob:" + pattern))
+			.collect(Collectors.toList());
 
-			writeCombinedOutputToFile(new File(outDir, OUTPUT_FILE_ANNOTATIONS_YML_FILE), combinedOutputNode);
+		try {
+			Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					// Stop early once the pipeline has been shut down
+					if (Thread.currentThread().isInterrupted()) {
+						return FileVisitResult.TERMINATE;
+					}
 
-			if (!skipAssembleZipArtifact.get()) {
-				assembleZipArtifact();
-			}
-			else {
-				getLogger().info("Skipping zip artifact assembly");
-			}
+					Path relativePath = dir.relativize(file);
+					logger.debug("Checking file: " + relativePath);
 
+					if (matchers.stream().anyMatch(matcher -> matcher.matches(relativePath))) {
+						logger.debug("Match found for: " + relativePath);
+						consumer.accept(file);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
 		}
 		catch (IOException e) {
-			throw new GradleException("Error combining annotations or creating zip file", e);
+			throw new UncheckedIOException(e);
 		}
 	}
 
 	static JsonNode combineOutput(JsonNode implementationsNode, JsonNode testsNode) {
-		ObjectNode requirementAnnotationsNode = yamlMapper.createObjectNode();
+		ObjectNode requirementAnnotationsNode = JsonNodeFactory.instance.objectNode();
 		if (!implementationsNode.isEmpty()) {
 			requirementAnnotationsNode.set(XML_IMPLEMENTATIONS, implementationsNode);
 		}
@@ -236,155 +250,31 @@ public class RequirementsToolTask extends DefaultTask {
 			requirementAnnotationsNode.set(XML_TESTS, testsNode);
 		}
 
-		ObjectNode newNode = yamlMapper.createObjectNode();
+		ObjectNode newNode = JsonNodeFactory.instance.objectNode();
 		newNode.set(XML_REQUIREMENT_ANNOTATIONS, requirementAnnotationsNode);
 
 		return newNode;
 	}
 
-	private void writeCombinedOutputToFile(File outputFile, JsonNode combinedOutputNode) throws IOException {
-		File reqAnnotFile = requirementsAnnotationsFile.getAsFile().getOrNull();
-		File svcsAnnotFile = svcsAnnotationsFile.getAsFile().getOrNull();
-
-		getLogger()
-			.info("Combining " + reqAnnotFile + " and " + svcsAnnotFile + " into " + outputFile.getAbsolutePath());
-
-		try (Writer writer = new PrintWriter(
-				new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8))) {
-			writer.write(YAML_LANG_SERVER_SCHEMA_ANNOTATIONS + System.lineSeparator());
-			yamlMapper.writeValue(writer, combinedOutputNode);
-		}
-	}
-
-	private void assembleZipArtifact() throws IOException {
-		String zipArtifactFilename = projectName.get() + "-reqstool.zip";
-		String topLevelDir = projectName.get() + "-reqstool";
-
-		File zipFileOutput = zipFile.get().getAsFile();
-		File outDir = zipFileOutput.getParentFile();
-
-		getLogger().info("Assembling zip file: " + zipFileOutput.getAbsolutePath());
-
-		try (FileOutputStream fos = new FileOutputStream(zipFileOutput);
-				ZipOutputStream zipOut = new ZipOutputStream(fos)) {
-
-			Map<String, Object> reqstoolConfigResources = new HashMap<String, Object>();
-
-			File datasetDir = datasetPath.getAsFile().get();
-			File requirementsFile = new File(datasetDir, INPUT_FILE_REQUIREMENTS_YML);
-			if (!requirementsFile.isFile()) {
-				String msg = "Missing mandatory " + INPUT_FILE_REQUIREMENTS_YML + ": "
-						+ requirementsFile.getAbsolutePath();
-				throw new GradleException(msg);
-			}
-
-			addFileToZipArtifact(zipOut, requirementsFile, new File(topLevelDir));
-			getLogger().info("added to " + topLevelDir + ": " + requirementsFile);
-			reqstoolConfigResources.put("requirements", requirementsFile.getName());
-
-			File svcsFile = new File(datasetDir, INPUT_FILE_SOFTWARE_VERIFICATION_CASES_YML);
-			if (svcsFile.isFile()) {
-				addFileToZipArtifact(zipOut, svcsFile, new File(topLevelDir));
-				getLogger().debug("added to " + topLevelDir + ": " + svcsFile);
-				reqstoolConfigResources.put("software_verification_cases", svcsFile.getName());
-			}
-
-			File mvrsFile = new File(datasetDir, INPUT_FILE_MANUAL_VERIFICATION_RESULTS_YML);
-			if (mvrsFile.isFile()) {
-				addFileToZipArtifact(zipOut, mvrsFile, new File(topLevelDir));
-				getLogger().debug("added to " + topLevelDir + ": " + mvrsFile);
-				reqstoolConfigResources.put("manual_verification_results", mvrsFile.getName());
-			}
-
-			File annotationsZipFile = new File(outDir, OUTPUT_FILE_ANNOTATIONS_YML_FILE);
-			if (annotationsZipFile.isFile()) {
-				addFileToZipArtifact(zipOut, annotationsZipFile, new File(topLevelDir));
-				getLogger().debug("added to " + topLevelDir + ": " + annotationsZipFile);
-				reqstoolConfigResources.put("annotations", annotationsZipFile.getName());
-			}
-
-			Path dir = Paths.get(projectBasedir.get().toURI());
-			List<String> patterns = testResults.get()
-				.stream()
-				.map(pattern -> "glob:" + pattern)
-				.collect(Collectors.toList());
-
-			List<PathMatcher> matchers = patterns.stream()
-				.map(pattern -> FileSystems.getDefault().getPathMatcher(pattern))
-				.collect(Collectors.toList());
-
-			AtomicInteger testResultsCount = new AtomicInteger(0);
-
-			Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
-				@Override
-				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-					Path relativePath = dir.relativize(file);
-					getLogger().debug("Checking file: " + relativePath);
-
-					if (matchers.stream().anyMatch(matcher -> matcher.matches(relativePath))) {
-						getLogger().debug("Match found for: " + relativePath);
-						addFileToZipArtifact(zipOut, file.toFile(),
-								new File(topLevelDir, OUTPUT_ARTIFACT_DIR_TEST_RESULTS));
-						testResultsCount.incrementAndGet();
-					}
-					return FileVisitResult.CONTINUE;
-				}
-			});
-
-			getLogger().debug("testResults values: " + Arrays.toString(testResults.get().toArray()));
-			getLogger().debug("added " + testResultsCount + " test_results");
-			reqstoolConfigResources.put("test_results", OUTPUT_ARTIFACT_TEST_RESULTS_PATTERN);
-
-			addReqstoolConfigYamlToZip(zipOut, new File(topLevelDir), reqstoolConfigResources);
-		}
-
-		getLogger().info("Assembled zip artifact: " + zipFileOutput.getAbsolutePath());
+	static ObjectMapper yamlMapper() {
+		return YamlMapperHolder.INSTANCE;
 	}
 
-	private void addFileToZipArtifact(ZipOutputStream zipOut, File file, File targetDirectory) throws IOException {
-		if (file.exists()) {
-			File entryName;
-			if (targetDirectory == null || targetDirectory.getName().isEmpty()) {
-				entryName = new File(file.getName());
-			}
-			else {
-				entryName = new File(targetDirectory, file.getName());
-			}
-
-			getLogger().info("Adding file: " + entryName.toString());
-
-			ZipEntry zipEntry = new ZipEntry(entryName.toString());
-			zipOut.putNextEntry(zipEntry);
-
-			// Use Java NIO instead of Commons IO
-			byte[] bytes = Files.readAllBytes(file.toPath());
-			zipOut.write(bytes, 0, bytes.length);
-			zipOut.closeEntry();
-		}
+	private static ObjectMapper createYamlMapper() {
+		YAMLFactory yamlFactory = new YAMLFactory().enable(YAMLGenerator.Feature.INDENT_ARRAYS_WITH_INDICATOR);
+		ObjectMapper mapper = new ObjectMapper(yamlFactory);
+		mapper.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+		return mapper;
 	}
 
-	private void addReqstoolConfigYamlToZip(ZipOutputStream zipOut, File topLevelDir,
-			Map<String, Object> reqstoolConfigResources) throws IOException {
-		DumperOptions options = new DumperOptions();
-		options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
-		options.setPrettyFlow(true);
-		Yaml yaml = new Yaml(options);
-
-		LinkedHashMap<String, Object> yamlData = new LinkedHashMap<String, Object>();
-		yamlData.put("language", "java");
-		yamlData.put("build", "gradle");
-		yamlData.put("resources", reqstoolConfigResources);
-
-		ZipEntry zipEntry = new ZipEntry(new File(topLevelDir, OUTPUT_ARTIFACT_FILE_REQSTOOL_CONFIG_YML).toString());
-		zipOut.putNextEntry(zipEntry);
+	/**
+	 * Defers creating the YAML mapper until first use, so that loading the task class or
+	 * running it with {@code skip} set does not pay for Jackson initialization.
+	 */
+	private static final class YamlMapperHolder {
 
-		Writer writer = new OutputStreamWriter(zipOut, StandardCharsets.UTF_8);
-		writer.write(String.format("%s%n", YAML_LANG_SERVER_SCHEMA_CONFIG));
-		writer.write(String.format("# version: %s%n", projectVersion.get()));
-		yaml.dump(yamlData, writer);
-		writer.flush();
+		static final ObjectMapper INSTANCE = createYamlMapper();
 
-		zipOut.closeEntry();
 	}
 
 }
@@ -0,0 +1,435 @@
+// Copyright © LFV
+package se.lfv.reqstool.gradle;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.internal.logging.progress.ProgressLogger;
+import org.gradle.internal.logging.progress.ProgressLoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Assembles one reqstool ZIP artifact from the inputs of an assemble task. Used by
+ * {@link AssembleRequirementsAction} in a Gradle worker.
+ */
+final class ZipArtifactAssembler {
+
+	// Test results discovery and the combine stage, plus both annotations parsers when no
+	// build service is set
+	private static final int PIPELINE_THREADS = 3;
+
+	private static final int TEST_RESULTS_QUEUE_CAPACITY = 256;
+
+	private static final long QUEUE_POLL_TIMEOUT_MILLIS = 100;
+
+	// Marker put on the queue by the discovery stage once the walk is complete
+	private static final Path END_OF_TEST_RESULTS = Paths.get("");
+
+	// Fixed buffer budget used for copying every input into the zip artifact
+	private static final int ZIP_BUFFER_SIZE = 64 * 1024;
+
+	private static final Logger LOGGER = Logging.getLogger(ZipArtifactAssembler.class);
+
+	private final AssembleRequirementsAction.Parameters parameters;
+
+	private final ProgressLoggerFactory progressLoggerFactory;
+
+	ZipArtifactAssembler(AssembleRequirementsAction.Parameters parameters,
+			ProgressLoggerFactory progressLoggerFactory) {
+		this.parameters = parameters;
+		this.progressLoggerFactory = progressLoggerFactory;
+	}
+
+	void assemble() {
+		ExecutorService executor = Executors.newFixedThreadPool(PIPELINE_THREADS, new PipelineThreadFactory());
+		try {
+			runPipeline(executor);
+		}
+		catch (IOException e) {
+			throw new GradleException("Error combining annotations or creating zip file", e);
+		}
+		finally {
+			// Interrupts any stage still running, e.g. discovery blocked on a full queue
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Runs the assembly as a small pipeline: both annotations files are parsed
+	 * concurrently and combined into {@code annotations.yml}, while test results are
+	 * discovered in parallel and handed to the archive writer, running on the calling
+	 * thread, through a bounded queue.
+	 */
+	private void runPipeline(ExecutorService executor) throws IOException {
+		File reqAnnotFile = parameters.getRequirementsAnnotationsFile().getAsFile().getOrNull();
+		File svcsAnnotFile = parameters.getSvcsAnnotationsFile().getAsFile().getOrNull();
+
+		File outDir = parameters.getOutputDirectory().getAsFile().get();
+		if (!outDir.exists()) {
+			outDir.mkdirs();
+		}
+		File annotationsFile = new File(outDir, RequirementsToolTask.OUTPUT_FILE_ANNOTATIONS_YML_FILE);
+
+		RequirementsToolService service = parameters.getRequirementsToolService().getOrNull();
+
+		CompletableFuture<JsonNode> implementationsFuture = readAnnotations(service, reqAnnotFile, executor)
+			.thenApply(node -> node.path(RequirementsToolTask.XML_REQUIREMENT_ANNOTATIONS)
+				.path(RequirementsToolTask.XML_IMPLEMENTATIONS));
+		CompletableFuture<JsonNode> testsFuture = readAnnotations(service, svcsAnnotFile, executor)
+			.thenApply(node -> node.path(RequirementsToolTask.XML_REQUIREMENT_ANNOTATIONS)
+				.path(RequirementsToolTask.XML_TESTS));
+
+		CompletableFuture<Void> annotationsFuture = implementationsFuture
+			.thenCombine(testsFuture, RequirementsToolTask::combineOutput)
+			.thenAcceptAsync(combinedOutputNode -> {
+				try {
+					writeCombinedOutputToFile(annotationsFile, reqAnnotFile, svcsAnnotFile, combinedOutputNode);
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, executor);
+
+		if (parameters.getSkipAssembleZipArtifact().get()) {
+			LOGGER.info("Skipping zip artifact assembly");
+			await(annotationsFuture);
+			return;
+		}
+
+		// Every task walks the tree itself, so test results written by earlier tasks are
+		// picked up and only a bounded number of paths is held in memory
+		Path basedir = Paths.get(parameters.getProjectBasedir().get().toURI());
+		List<String> patterns = parameters.getTestResults().get();
+		BlockingQueue<Path> testResultsQueue = new ArrayBlockingQueue<Path>(TEST_RESULTS_QUEUE_CAPACITY);
+		CompletableFuture<Void> discoveryFuture = CompletableFuture.runAsync(() -> {
+			RequirementsToolTask.walkTestResults(basedir, patterns, LOGGER, file -> put(testResultsQueue, file));
+			put(testResultsQueue, END_OF_TEST_RESULTS);
+		}, executor);
+
+		try {
+			assembleZipArtifact(annotationsFuture, discoveryFuture, testResultsQueue);
+		}
+		finally {
+			implementationsFuture.cancel(true);
+			testsFuture.cancel(true);
+			annotationsFuture.cancel(true);
+			discoveryFuture.cancel(true);
+		}
+	}
+
+	private CompletableFuture<JsonNode> readAnnotations(RequirementsToolService service, File annotationsFile,
+			ExecutorService executor) {
+		if (annotationsFile == null || !annotationsFile.exists()) {
+			return CompletableFuture.completedFuture(JsonNodeFactory.instance.objectNode());
+		}
+
+		if (service != null) {
+			// Cancelling a derived stage leaves the shared result intact
+			return service.readAnnotations(annotationsFile).thenApply(Function.identity());
+		}
+
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return RequirementsToolTask.yamlMapper().readTree(annotationsFile);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, executor);
+	}
+
+	private void writeCombinedOutputToFile(File outputFile, File reqAnnotFile, File svcsAnnotFile,
+			JsonNode combinedOutputNode) throws IOException {
+		LOGGER.info("Combining " + reqAnnotFile + " and " + svcsAnnotFile + " into " + outputFile.getAbsolutePath());
+
+		try (Writer writer = new PrintWriter(
+				new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8))) {
+			writer.write(RequirementsToolTask.YAML_LANG_SERVER_SCHEMA_ANNOTATIONS + System.lineSeparator());
+			RequirementsToolTask.yamlMapper().writeValue(writer, combinedOutputNode);
+		}
+	}
+
+	private void assembleZipArtifact(CompletableFuture<Void> annotationsFuture, CompletableFuture<Void> discoveryFuture,
+			BlockingQueue<Path> testResultsQueue) throws IOException {
+		String topLevelDir = parameters.getProjectName().get() + "-reqstool";
+
+		File zipFileOutput = parameters.getZipFile().get().getAsFile();
+		File outDir = parameters.getOutputDirectory().getAsFile().get();
+
+		LOGGER.info("Assembling zip file: " + zipFileOutput.getAbsolutePath());
+
+		ProgressLogger progressLogger = progressLoggerFactory.newOperation(ZipArtifactAssembler.class);
+		progressLogger.start("Assembling reqstool zip artifact", zipFileOutput.getName());
+
+		// ZipOutputStream switches to ZIP64 records on its own once an entry exceeds 4 GB
+		// or the archive exceeds 65535 entries
+		try (FileOutputStream fos = new FileOutputStream(zipFileOutput);
+				ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(fos, ZIP_BUFFER_SIZE))) {
+			ZipProgress zipProgress = new ZipProgress(progressLogger);
+
+			Map<String, Object> reqstoolConfigResources = new HashMap<String, Object>();
+
+			File datasetDir = parameters.getDatasetPath().getAsFile().get();
+			File requirementsFile = new File(datasetDir, RequirementsToolTask.INPUT_FILE_REQUIREMENTS_YML);
+			if (!requirementsFile.isFile()) {
+				String msg = "Missing mandatory " + RequirementsToolTask.INPUT_FILE_REQUIREMENTS_YML + ": "
+						+ requirementsFile.getAbsolutePath();
+				throw new GradleException(msg);
+			}
+
+			addFileToZipArtifact(zipOut, requirementsFile, new File(topLevelDir), zipProgress);
+			LOGGER.info("added to " + topLevelDir + ": " + requirementsFile);
+			reqstoolConfigResources.put("requirements", requirementsFile.getName());
+
+			File svcsFile = new File(datasetDir, RequirementsToolTask.INPUT_FILE_SOFTWARE_VERIFICATION_CASES_YML);
+			if (svcsFile.isFile()) {
+				addFileToZipArtifact(zipOut, svcsFile, new File(topLevelDir), zipProgress);
+				LOGGER.debug("added to " + topLevelDir + ": " + svcsFile);
+				reqstoolConfigResources.put("software_verification_cases", svcsFile.getName());
+			}
+
+			File mvrsFile = new File(datasetDir, RequirementsToolTask.INPUT_FILE_MANUAL_VERIFICATION_RESULTS_YML);
+			if (mvrsFile.isFile()) {
+				addFileToZipArtifact(zipOut, mvrsFile, new File(topLevelDir), zipProgress);
+				LOGGER.debug("added to " + topLevelDir + ": " + mvrsFile);
+				reqstoolConfigResources.put("manual_verification_results", mvrsFile.getName());
+			}
+
+			// annotations.yml is written by the combine stage, wait for it
+			await(annotationsFuture);
+
+			File annotationsZipFile = new File(outDir, RequirementsToolTask.OUTPUT_FILE_ANNOTATIONS_YML_FILE);
+			if (annotationsZipFile.isFile()) {
+				addFileToZipArtifact(zipOut, annotationsZipFile, new File(topLevelDir), zipProgress);
+				LOGGER.debug("added to " + topLevelDir + ": " + annotationsZipFile);
+				reqstoolConfigResources.put("annotations", annotationsZipFile.getName());
+			}
+
+			int testResultsCount = 0;
+			Path testResult;
+			while ((testResult = take(testResultsQueue, discoveryFuture)) != END_OF_TEST_RESULTS) {
+				addFileToZipArtifact(zipOut, testResult.toFile(),
+						new File(topLevelDir, RequirementsToolTask.OUTPUT_ARTIFACT_DIR_TEST_RESULTS), zipProgress);
+				testResultsCount++;
+			}
+			await(discoveryFuture);
+
+			LOGGER.debug("testResults values: " + Arrays.toString(parameters.getTestResults().get().toArray()));
+			LOGGER.debug("added " + testResultsCount + " test_results");
+			reqstoolConfigResources.put("test_results", RequirementsToolTask.OUTPUT_ARTIFACT_TEST_RESULTS_PATTERN);
+
+			addReqstoolConfigYamlToZip(zipOut, new File(topLevelDir), reqstoolConfigResources);
+		}
+		catch (IOException | RuntimeException e) {
+			// Do not leave a truncated artifact behind for publishing to pick up
+			try {
+				Files.deleteIfExists(zipFileOutput.toPath());
+			}
+			catch (IOException deleteFailure) {
+				e.addSuppressed(deleteFailure);
+			}
+			throw e;
+		}
+		finally {
+			progressLogger.completed();
+		}
+
+		LOGGER.info("Assembled zip artifact: " + zipFileOutput.getAbsolutePath());
+	}
+
+	private void addFileToZipArtifact(ZipOutputStream zipOut, File file, File targetDirectory, ZipProgress zipProgress)
+			throws IOException {
+		if (file.exists()) {
+			File entryName;
+			if (targetDirectory == null || targetDirectory.getName().isEmpty()) {
+				entryName = new File(file.getName());
+			}
+			else {
+				entryName = new File(targetDirectory, file.getName());
+			}
+
+			LOGGER.info("Adding file: " + entryName.toString());
+
+			ZipEntry zipEntry = new ZipEntry(entryName.toString());
+			zipOut.putNextEntry(zipEntry);
+
+			// Stream through the shared buffer so memory use does not grow with file size
+			long bytes;
+			try (InputStream in = Files.newInputStream(file.toPath())) {
+				bytes = copy(in, zipOut, zipProgress.buffer);
+			}
+			zipOut.closeEntry();
+
+			zipProgress.entryAdded(bytes);
+		}
+	}
+
+	/**
+	 * Copies {@code in} to {@code out} using only the given buffer, returning the number
+	 * of bytes copied.
+	 */
+	private static long copy(InputStream in, OutputStream out, byte[] buffer) throws IOException {
+		long total = 0;
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+			total += read;
+		}
+		return total;
+	}
+
+	private void addReqstoolConfigYamlToZip(ZipOutputStream zipOut, File topLevelDir,
+			Map<String, Object> reqstoolConfigResources) throws IOException {
+		LinkedHashMap<String, Object> yamlData = new LinkedHashMap<String, Object>();
+		yamlData.put("language", "java");
+		yamlData.put("build", "gradle");
+		yamlData.put("resources", reqstoolConfigResources);
+
+		ZipEntry zipEntry = new ZipEntry(
+				new File(topLevelDir, RequirementsToolTask.OUTPUT_ARTIFACT_FILE_REQSTOOL_CONFIG_YML).toString());
+		zipOut.putNextEntry(zipEntry);
+
+		Writer writer = new OutputStreamWriter(zipOut, StandardCharsets.UTF_8);
+		writer.write(String.format("%s%n", RequirementsToolTask.YAML_LANG_SERVER_SCHEMA_CONFIG));
+		writer.write(String.format("# version: %s%n", parameters.getProjectVersion().get()));
+		// Keep the insertion order of the config keys and leave the zip stream open
+		RequirementsToolTask.yamlMapper()
+			.writer()
+			.without(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+			.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+			.writeValue(writer, yamlData);
+		writer.flush();
+
+		zipOut.closeEntry();
+	}
+
+	private static void put(BlockingQueue<Path> queue, Path path) {
+		try {
+			queue.put(path);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Test results discovery was interrupted");
+		}
+	}
+
+	/**
+	 * Takes the next discovered test result, failing fast if the discovery stage failed
+	 * instead of waiting for an end marker that will never arrive.
+	 */
+	private static Path take(BlockingQueue<Path> queue, CompletableFuture<Void> discoveryFuture) throws IOException {
+		try {
+			while (true) {
+				Path path = queue.poll(QUEUE_POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+				if (path != null) {
+					return path;
+				}
+				if (discoveryFuture.isCompletedExceptionally()) {
+					await(discoveryFuture);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GradleException("Interrupted while assembling zip artifact", e);
+		}
+	}
+
+	/**
+	 * Waits for a pipeline stage and rethrows its failure as it was originally thrown.
+	 */
+	private static <T> T await(CompletableFuture<T> future) throws IOException {
+		try {
+			return future.join();
+		}
+		catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new GradleException("Error in reqstool pipeline stage", cause);
+		}
+	}
+
+	/**
+	 * Tracks the entries written to the zip artifact and reports them through Gradle's
+	 * progress logging. Also owns the single copy buffer shared by all entries.
+	 */
+	private static final class ZipProgress {
+
+		private final byte[] buffer = new byte[ZIP_BUFFER_SIZE];
+
+		private final ProgressLogger progressLogger;
+
+		private int entries;
+
+		private long bytes;
+
+		ZipProgress(ProgressLogger progressLogger) {
+			this.progressLogger = progressLogger;
+		}
+
+		void entryAdded(long entryBytes) {
+			entries++;
+			bytes += entryBytes;
+			progressLogger.progress(entries + " files, " + (bytes / (1024 * 1024)) + " MB");
+		}
+
+	}
+
+	static final class PipelineThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadCount = new AtomicInteger(0);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "reqstool-pipeline-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	}
+
+}
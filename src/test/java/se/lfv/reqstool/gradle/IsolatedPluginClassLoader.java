@@ -0,0 +1,48 @@
+// Copyright © LFV
+package se.lfv.reqstool.gradle;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Loads the plugin classes afresh and delegates everything else to the test class loader,
+ * so that class loading and static initialization of the plugin can be observed
+ * independently of other tests running in the same JVM.
+ */
+class IsolatedPluginClassLoader extends URLClassLoader {
+
+	private static final String PLUGIN_PACKAGE = RequirementsToolPlugin.class.getPackage().getName() + ".";
+
+	IsolatedPluginClassLoader() {
+		super(new URL[] { RequirementsToolPlugin.class.getProtectionDomain().getCodeSource().getLocation() },
+				IsolatedPluginClassLoader.class.getClassLoader());
+	}
+
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		if (!name.startsWith(PLUGIN_PACKAGE)) {
+			return super.loadClass(name, resolve);
+		}
+
+		synchronized (getClassLoadingLock(name)) {
+			Class<?> loadedClass = findLoadedClass(name);
+			if (loadedClass == null) {
+				loadedClass = findClass(name);
+			}
+			if (resolve) {
+				resolveClass(loadedClass);
+			}
+			return loadedClass;
+		}
+	}
+
+	/**
+	 * Returns whether the named class has been loaded by this class loader so far.
+	 */
+	boolean isLoaded(String name) {
+		synchronized (getClassLoadingLock(name)) {
+			return findLoadedClass(name) != null;
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+// Copyright © LFV
+package se.lfv.reqstool.gradle;
+
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.provider.Property;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Measures the startup and configuration overhead of the plugin. Every iteration loads
+ * the plugin classes in a fresh class loader, so class loading and static initialization
+ * are part of each measurement. Run it with the {@code benchmarkTest} task, the default
+ * test run excludes it.
+ */
+@Tag("benchmark")
+class RequirementsToolBenchmarkTest {
+
+	private static final int WARMUP_ITERATIONS = 5;
+
+	private static final int ITERATIONS = 20;
+
+	private static final String[] PHASES = { "load plugin classes", "apply plugin and configure task",
+			"execute with skip", "first YAML mapper use" };
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void benchmarkStartupAndConfiguration() throws Exception {
+		long[] cold = measure("cold");
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			measure("warmup-" + i);
+		}
+
+		long[][] samples = new long[PHASES.length][ITERATIONS];
+		for (int i = 0; i < ITERATIONS; i++) {
+			long[] durations = measure("iteration-" + i);
+			for (int phase = 0; phase < PHASES.length; phase++) {
+				samples[phase][i] = durations[phase];
+			}
+		}
+
+		System.out.printf("%-32s %10s %12s%n", "phase", "cold (ms)", "median (ms)");
+		for (int phase = 0; phase < PHASES.length; phase++) {
+			System.out.printf("%-32s %10.2f %12.2f%n", PHASES[phase], millis(cold[phase]),
+					millis(median(samples[phase])));
+		}
+	}
+
+	/**
+	 * Runs one iteration in a new project and class loader, returning the duration of
+	 * each phase in nanoseconds.
+	 */
+	@SuppressWarnings("unchecked")
+	private long[] measure(String name) throws Exception {
+		Project project = ProjectBuilder.builder()
+			.withProjectDir(Files.createDirectories(tempDir.resolve(name)).toFile())
+			.build();
+
+		try (IsolatedPluginClassLoader loader = new IsolatedPluginClassLoader()) {
+			long start = System.nanoTime();
+			Class<?> pluginClass = Class.forName(RequirementsToolPlugin.class.getName(), true, loader);
+			Class<?> taskClass = Class.forName(RequirementsToolTask.class.getName(), true, loader);
+			long loaded = System.nanoTime();
+
+			project.getPluginManager().apply(pluginClass);
+			Task task = project.getTasks().getByName("assembleRequirements");
+			long configured = System.nanoTime();
+
+			((Property<Boolean>) taskClass.getMethod("getSkip").invoke(task)).set(true);
+			taskClass.getMethod("execute").invoke(task);
+			long executed = System.nanoTime();
+
+			assertFalse(loader.isLoaded(RequirementsToolTask.class.getName() + "$YamlMapperHolder"));
+
+			Method yamlMapper = taskClass.getDeclaredMethod("yamlMapper");
+			yamlMapper.setAccessible(true);
+			yamlMapper.invoke(null);
+			long mapperCreated = System.nanoTime();
+
+			return new long[] { loaded - start, configured - loaded, executed - configured, mapperCreated - executed };
+		}
+	}
+
+	private static long median(long[] values) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1_000_000.0;
+	}
+
+}
@@ -0,0 +1,178 @@
+// Copyright © LFV
+package se.lfv.reqstool.gradle;
+
+import org.gradle.api.Project;
+import org.gradle.api.internal.project.ProjectInternal;
+import org.gradle.internal.logging.progress.ProgressLoggerFactory;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives the task with test results that are large or numerous enough to need ZIP64 and
+ * checks that the heap used while assembling the artifact does not grow with the input.
+ * These tests write several GB to disk and are slow, so the default test run excludes
+ * them. Run them with the {@code largeArtifactTest} task.
+ */
+@Tag("large")
+class RequirementsToolLargeArtifactTest {
+
+	private static final long MB = 1024 * 1024;
+
+	// Allowed growth of the peak heap between the smallest and the largest input
+	private static final long PEAK_HEAP_MARGIN = 64 * MB;
+
+	@TempDir
+	Path tempDir;
+
+	private Project project;
+
+	private RequirementsToolTask task;
+
+	private File zipFile;
+
+	private Path testResultsDir;
+
+	@BeforeEach
+	void setup() throws Exception {
+		project = ProjectBuilder.builder().withProjectDir(tempDir.toFile()).build();
+		task = project.getTasks().create("testTask", RequirementsToolTask.class);
+
+		Path datasetDir = Files.createDirectories(tempDir.resolve("reqstool"));
+		Path source = Paths.get(getClass().getClassLoader().getResource("zip/requirements.yml").toURI());
+		Files.copy(source, datasetDir.resolve("requirements.yml"), StandardCopyOption.REPLACE_EXISTING);
+		testResultsDir = Files.createDirectories(tempDir.resolve("build/test-results/test"));
+
+		File outputDir = tempDir.resolve("build/reqstool").toFile();
+		zipFile = new File(outputDir, "test-project-reqstool.zip");
+
+		task.getSkip().set(false);
+		task.getSkipAssembleZipArtifact().set(false);
+		task.getProjectName().set("test-project");
+		task.getProjectVersion().set("1.0.0");
+		task.getProjectBasedir().set(tempDir.toFile());
+		task.getOutputDirectory().set(outputDir);
+		task.getDatasetPath().set(datasetDir.toFile());
+		task.getTestResults().set(Arrays.asList("build/test-results/**/*.xml"));
+		task.getZipFile().set(zipFile);
+	}
+
+	@Test
+	void testPeakHeapDoesNotGrowWithTestResultSize() throws IOException {
+		long[] sizes = { 16 * MB, 256 * MB, 1024 * MB };
+		Path testResult = testResultsDir.resolve("TEST-large.xml");
+
+		// Class loading and creating the YAML mapper are not part of the measured runs
+		createSparseFile(testResult, sizes[0]);
+		assemble();
+
+		long[] peaks = new long[sizes.length];
+		for (int i = 0; i < sizes.length; i++) {
+			createSparseFile(testResult, sizes[i]);
+			peaks[i] = executeAndMeasurePeakHeap();
+			System.out.printf("test result of %5d MB: peak heap %4d MB%n", sizes[i] / MB, peaks[i] / MB);
+
+			try (ZipFile zip = new ZipFile(zipFile)) {
+				assertEquals(sizes[i], zip.getEntry("test-project-reqstool/test_results/TEST-large.xml").getSize());
+			}
+		}
+
+		// The largest input does not fit in the heap, so it can only have been streamed
+		assertTrue(sizes[sizes.length - 1] > Runtime.getRuntime().maxMemory());
+		assertTrue(peaks[peaks.length - 1] - peaks[0] < PEAK_HEAP_MARGIN,
+				"Peak heap grew from " + peaks[0] / MB + " MB to " + peaks[peaks.length - 1] / MB + " MB");
+	}
+
+	@Test
+	void testMoreThan65535TestResults() throws IOException {
+		int testResultsCount = 70_000;
+		byte[] content = "<testsuite/>".getBytes();
+		for (int i = 0; i < testResultsCount; i++) {
+			Files.write(testResultsDir.resolve("TEST-" + i + ".xml"), content);
+		}
+
+		assemble();
+
+		try (ZipFile zip = new ZipFile(zipFile)) {
+			long packaged = zip.stream().filter(entry -> entry.getName().contains("/test_results/")).count();
+			assertEquals(testResultsCount, packaged);
+		}
+	}
+
+	@Test
+	void testTestResultLargerThan4GB() throws IOException {
+		// Just past the classic 4 GB entry limit
+		long size = 4096 * MB + MB;
+		createSparseFile(testResultsDir.resolve("TEST-huge.xml"), size);
+
+		assemble();
+
+		try (ZipFile zip = new ZipFile(zipFile)) {
+			ZipEntry entry = zip.getEntry("test-project-reqstool/test_results/TEST-huge.xml");
+			assertNotNull(entry);
+			assertEquals(size, entry.getSize());
+		}
+	}
+
+	/**
+	 * Assembles the artifact after a full GC and returns the peak heap used while it ran,
+	 * summed over all heap memory pools.
+	 */
+	private long executeAndMeasurePeakHeap() {
+		List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans()
+			.stream()
+			.filter(pool -> pool.getType() == MemoryType.HEAP)
+			.collect(Collectors.toList());
+
+		System.gc();
+		heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+		assemble();
+
+		return heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+	}
+
+	/**
+	 * Runs the work the task submits to its worker on the calling thread, since the
+	 * worker infrastructure is not available to {@link ProjectBuilder} projects.
+	 */
+	private void assemble() {
+		AssembleRequirementsAction.Parameters parameters = project.getObjects()
+			.newInstance(AssembleRequirementsAction.Parameters.class);
+		task.configureParameters(parameters);
+		ProgressLoggerFactory progressLoggerFactory = ((ProjectInternal) project).getServices()
+			.get(ProgressLoggerFactory.class);
+		new ZipArtifactAssembler(parameters, progressLoggerFactory).assemble();
+	}
+
+	/**
+	 * Creates or resizes a file of zero bytes without writing them, so the inputs do not
+	 * need to be produced in memory or take up their full size on disk.
+	 */
+	private static void createSparseFile(Path file, long size) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+			raf.setLength(size);
+		}
+	}
+
+}
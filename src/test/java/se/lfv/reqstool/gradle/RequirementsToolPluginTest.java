@@ -0,0 +1,139 @@
+// Copyright © LFV
+package se.lfv.reqstool.gradle;
+
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.internal.project.ProjectInternal;
+import org.gradle.api.publish.PublishingExtension;
+import org.gradle.api.publish.maven.MavenPublication;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequirementsToolPluginTest {
+
+	@TempDir
+	Path tempDir;
+
+	private Project project;
+
+	private RequirementsToolExtension extension;
+
+	@BeforeEach
+	void setup() {
+		project = ProjectBuilder.builder().withProjectDir(tempDir.toFile()).withName("my-app").build();
+		project.getPluginManager().apply("maven-publish");
+		project.getPluginManager().apply(RequirementsToolPlugin.class);
+
+		extension = project.getExtensions().getByType(RequirementsToolExtension.class);
+	}
+
+	@Test
+	void testDefaultTaskAndPublication() {
+		((ProjectInternal) project).evaluate();
+
+		RequirementsToolTask task = (RequirementsToolTask) project.getTasks().getByName("assembleRequirements");
+
+		assertEquals(new File(tempDir.toFile(), "build/reqstool/my-app-reqstool.zip"),
+				task.getZipFile().get().getAsFile());
+		assertTrue(task.getRequirementsToolService().isPresent());
+		assertTrue(task.getTaskDependencies().getDependencies(task).isEmpty());
+		PublishingExtension publishing = project.getExtensions().getByType(PublishingExtension.class);
+		assertNotNull(publishing.getPublications().findByName("reqstool"));
+	}
+
+	@Test
+	void testDatasetsRegisterTaskAndPublicationPerDataset() {
+		extension.datasets(datasets -> {
+			datasets.create("free");
+			datasets.create("pro", dataset -> dataset.getDatasetPath().set(new File(tempDir.toFile(), "variants/pro")));
+		});
+		((ProjectInternal) project).evaluate();
+
+		RequirementsToolTask freeTask = (RequirementsToolTask) project.getTasks().getByName("assembleRequirementsFree");
+		RequirementsToolTask proTask = (RequirementsToolTask) project.getTasks().getByName("assembleRequirementsPro");
+
+		assertEquals(new File(tempDir.toFile(), "reqstool/free"), freeTask.getDatasetPath().get().getAsFile());
+		assertEquals(new File(tempDir.toFile(), "variants/pro"), proTask.getDatasetPath().get().getAsFile());
+		assertEquals(new File(tempDir.toFile(), "build/reqstool/free/my-app-free-reqstool.zip"),
+				freeTask.getZipFile().get().getAsFile());
+		assertEquals("my-app-pro", proTask.getProjectName().get());
+
+		// Common inputs are shared with the default task
+		assertEquals(extension.getRequirementsAnnotationsFile().get(), freeTask.getRequirementsAnnotationsFile().get());
+		assertEquals(extension.getTestResults().get(), proTask.getTestResults().get());
+		assertSame(freeTask.getRequirementsToolService().get(), proTask.getRequirementsToolService().get());
+
+		// The default task assembles the datasets instead of the default dataset
+		Task assembleTask = project.getTasks().getByName("assembleRequirements");
+		assertEquals(new HashSet<>(Arrays.asList(freeTask, proTask)),
+				assembleTask.getTaskDependencies().getDependencies(assembleTask));
+
+		PublishingExtension publishing = project.getExtensions().getByType(PublishingExtension.class);
+		MavenPublication freePublication = (MavenPublication) publishing.getPublications().getByName("reqstoolFree");
+		MavenPublication proPublication = (MavenPublication) publishing.getPublications().getByName("reqstoolPro");
+		assertEquals("my-app-free", freePublication.getArtifactId());
+		assertEquals("my-app-pro", proPublication.getArtifactId());
+	}
+
+	@Test
+	void testDefaultPublicationIsConfigurableFromBuildScript() {
+		// Build scripts configure the publication while they are evaluated
+		PublishingExtension publishing = project.getExtensions().getByType(PublishingExtension.class);
+		MavenPublication publication = (MavenPublication) publishing.getPublications().getByName("reqstool");
+		publication.setArtifactId("my-app-requirements");
+		((ProjectInternal) project).evaluate();
+
+		assertEquals("my-app-requirements", publication.getArtifactId());
+		assertEquals(1, publication.getArtifacts().size());
+	}
+
+	@Test
+	void testPublishWithDatasets() throws Exception {
+		Path projectDir = Files.createDirectories(tempDir.resolve("consumer"));
+		copyResource("functional/datasets/settings.gradle", projectDir.resolve("settings.gradle"));
+		copyResource("functional/datasets/build.gradle", projectDir.resolve("build.gradle"));
+		copyResource("zip/requirements.yml", projectDir.resolve("reqstool/free/requirements.yml"));
+		copyResource("zip/requirements.yml", projectDir.resolve("reqstool/pro/requirements.yml"));
+		Path generated = projectDir.resolve("build/generated/sources/annotationProcessor/java");
+		copyResource("yml/requirements_annotations.yml", generated.resolve("main/resources/annotations.yml"));
+		copyResource("yml/svcs_annotations.yml", generated.resolve("test/resources/annotations.yml"));
+
+		BuildResult result = GradleRunner.create()
+			.withProjectDir(projectDir.toFile())
+			.withPluginClasspath()
+			.withArguments("publish")
+			.build();
+
+		assertEquals(TaskOutcome.SUCCESS, result.task(":assembleRequirementsFree").getOutcome());
+		assertEquals(TaskOutcome.SUCCESS, result.task(":assembleRequirementsPro").getOutcome());
+		assertEquals(TaskOutcome.SKIPPED, result.task(":assembleRequirements").getOutcome());
+		assertEquals(TaskOutcome.SKIPPED, result.task(":publishReqstoolPublicationToMavenRepository").getOutcome());
+
+		Path repo = projectDir.resolve("build/repo/com/example");
+		assertTrue(Files.isRegularFile(repo.resolve("my-app-free/1.0.0/my-app-free-1.0.0-reqstool.zip")));
+		assertTrue(Files.isRegularFile(repo.resolve("my-app-pro/1.0.0/my-app-pro-1.0.0-reqstool.zip")));
+		assertFalse(Files.exists(repo.resolve("my-app")));
+	}
+
+	private static void copyResource(String resource, Path target) throws Exception {
+		Files.createDirectories(target.getParent());
+		Path source = Paths.get(RequirementsToolPluginTest.class.getClassLoader().getResource(resource).toURI());
+		Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+}
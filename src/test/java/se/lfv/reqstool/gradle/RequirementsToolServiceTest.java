@@ -0,0 +1,78 @@
+// Copyright © LFV
+package se.lfv.reqstool.gradle;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.gradle.api.services.BuildServiceParameters;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequirementsToolServiceTest {
+
+	@TempDir
+	Path tempDir;
+
+	private RequirementsToolService service;
+
+	@BeforeEach
+	void setup() {
+		service = new RequirementsToolService() {
+			@Override
+			public BuildServiceParameters.None getParameters() {
+				return null;
+			}
+		};
+	}
+
+	@AfterEach
+	void tearDown() {
+		service.close();
+	}
+
+	@Test
+	void testReadAnnotationsIsShared() throws Exception {
+		File file = Files.write(tempDir.resolve("annotations.yml"), "key: value".getBytes()).toFile();
+
+		CompletableFuture<JsonNode> first = service.readAnnotations(file);
+		CompletableFuture<JsonNode> second = service.readAnnotations(file);
+
+		assertSame(first, second);
+		assertEquals("value", first.join().path("key").asText());
+	}
+
+	@Test
+	void testReadAnnotationsRereadsChangedFile() throws Exception {
+		Path path = Files.write(tempDir.resolve("annotations.yml"), "key: value".getBytes());
+		assertEquals("value", service.readAnnotations(path.toFile()).join().path("key").asText());
+
+		Files.write(path, "key: changed value".getBytes());
+
+		assertEquals("changed value", service.readAnnotations(path.toFile()).join().path("key").asText());
+	}
+
+	@Test
+	void testFailedReadIsNotCached() throws Exception {
+		Path path = Files.write(tempDir.resolve("annotations.yml"), "key: [unclosed".getBytes());
+		CompletableFuture<JsonNode> failed = service.readAnnotations(path.toFile());
+		assertThrows(CompletionException.class, failed::join);
+
+		// Same size and modification time, only a new read can succeed
+		long lastModified = path.toFile().lastModified();
+		Files.write(path, "key: [closed]".getBytes());
+		assertTrue(path.toFile().setLastModified(lastModified));
+
+		CompletableFuture<JsonNode> retried = service.readAnnotations(path.toFile());
+		assertNotSame(failed, retried);
+		assertEquals("closed", retried.join().path("key").path(0).asText());
+	}
+
+}
@@ -5,6 +5,11 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.internal.project.ProjectInternal;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.internal.logging.progress.ProgressLoggerFactory;
 import org.gradle.testfixtures.ProjectBuilder;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -12,8 +17,20 @@ import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -136,6 +153,28 @@ class RequirementsToolTaskTest {
 		assertDoesNotThrow(() -> task.execute());
 	}
 
+	@Test
+	@SuppressWarnings("unchecked")
+	void testSkipExecutionDoesNotCreateYamlMapper() throws Exception {
+		// Other tests in this JVM may already have created the mapper, use fresh classes
+		try (IsolatedPluginClassLoader loader = new IsolatedPluginClassLoader()) {
+			Class<? extends Task> taskClass = loader.loadClass(RequirementsToolTask.class.getName())
+				.asSubclass(Task.class);
+			String holderClass = RequirementsToolTask.class.getName() + "$YamlMapperHolder";
+
+			Task isolatedTask = project.getTasks().create("isolatedTask", taskClass);
+			((Property<Boolean>) taskClass.getMethod("getSkip").invoke(isolatedTask)).set(true);
+			taskClass.getMethod("execute").invoke(isolatedTask);
+
+			assertFalse(loader.isLoaded(holderClass));
+
+			Method yamlMapper = taskClass.getDeclaredMethod("yamlMapper");
+			yamlMapper.setAccessible(true);
+			assertNotNull(yamlMapper.invoke(null));
+			assertTrue(loader.isLoaded(holderClass));
+		}
+	}
+
 	@Test
 	void testMissingRequirementsFile() throws IOException {
 		// Setup directories
@@ -154,8 +193,187 @@ class RequirementsToolTaskTest {
 		task.getZipFile().set(new File(outputDir, "test-project-reqstool.zip"));
 
 		// Should throw exception when requirements.yml is missing
-		Exception exception = assertThrows(Exception.class, () -> task.execute());
+		Exception exception = assertThrows(Exception.class, this::assemble);
 		assertTrue(exception.getMessage().contains("requirements.yml"));
 	}
 
+	@Test
+	void testAssembleZipArtifact() throws Exception {
+		File outputDir = tempDir.resolve("build/reqstool").toFile();
+		Path datasetDir = Files.createDirectories(tempDir.resolve("reqstool"));
+		copyResource("zip/requirements.yml", datasetDir.resolve("requirements.yml"));
+		copyResource("zip/software_verification_cases.yml", datasetDir.resolve("software_verification_cases.yml"));
+		copyResource("zip/manual_verification_results.yml", datasetDir.resolve("manual_verification_results.yml"));
+		copyResource("zip/surefire-reports/TEST-com.reqstool.example.demo.SVCsTest.xml",
+				tempDir.resolve("build/test-results/test/TEST-com.reqstool.example.demo.SVCsTest.xml"));
+		copyResource("yml/requirements_annotations.yml", tempDir.resolve("requirements_annotations.yml"));
+		copyResource("yml/svcs_annotations.yml", tempDir.resolve("svcs_annotations.yml"));
+
+		configureTask(outputDir, datasetDir.toFile());
+		task.getRequirementsAnnotationsFile().set(tempDir.resolve("requirements_annotations.yml").toFile());
+		task.getSvcsAnnotationsFile().set(tempDir.resolve("svcs_annotations.yml").toFile());
+
+		assemble();
+
+		Set<String> entries = new HashSet<>();
+		try (ZipFile zip = new ZipFile(new File(outputDir, "test-project-reqstool.zip"))) {
+			Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+			while (zipEntries.hasMoreElements()) {
+				entries.add(zipEntries.nextElement().getName());
+			}
+		}
+
+		assertTrue(entries.contains("test-project-reqstool/requirements.yml"));
+		assertTrue(entries.contains("test-project-reqstool/software_verification_cases.yml"));
+		assertTrue(entries.contains("test-project-reqstool/manual_verification_results.yml"));
+		assertTrue(entries.contains("test-project-reqstool/annotations.yml"));
+		assertTrue(entries.contains("test-project-reqstool/reqstool_config.yml"));
+		assertTrue(entries.contains("test-project-reqstool/test_results/TEST-com.reqstool.example.demo.SVCsTest.xml"));
+
+		ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+		JsonNode annotations = mapper.readTree(new File(outputDir, "annotations.yml")).get("requirement_annotations");
+		assertTrue(annotations.has("implementations"));
+		assertTrue(annotations.has("tests"));
+	}
+
+	@Test
+	void testReqstoolConfigYaml() throws Exception {
+		File outputDir = tempDir.resolve("build/reqstool").toFile();
+		Path datasetDir = Files.createDirectories(tempDir.resolve("reqstool"));
+		copyResource("zip/requirements.yml", datasetDir.resolve("requirements.yml"));
+
+		configureTask(outputDir, datasetDir.toFile());
+		assemble();
+
+		JsonNode config;
+		try (ZipFile zip = new ZipFile(new File(outputDir, "test-project-reqstool.zip"))) {
+			ZipEntry entry = zip.getEntry("test-project-reqstool/reqstool_config.yml");
+			assertNotNull(entry);
+			config = new ObjectMapper(new YAMLFactory()).readTree(zip.getInputStream(entry));
+		}
+
+		assertEquals("java", config.path("language").asText());
+		assertEquals("gradle", config.path("build").asText());
+		assertEquals("requirements.yml", config.path("resources").path("requirements").asText());
+		assertEquals("test_results/**/*.xml", config.path("resources").path("test_results").path(0).asText());
+	}
+
+	@Test
+	void testInvalidAnnotationsFileFailsTask() throws Exception {
+		File outputDir = tempDir.resolve("build/reqstool").toFile();
+		Path datasetDir = Files.createDirectories(tempDir.resolve("reqstool"));
+		copyResource("zip/requirements.yml", datasetDir.resolve("requirements.yml"));
+		Path invalidAnnotations = Files.write(tempDir.resolve("annotations.yml"), "key: [unclosed".getBytes());
+
+		configureTask(outputDir, datasetDir.toFile());
+		task.getRequirementsAnnotationsFile().set(invalidAnnotations.toFile());
+
+		// Parse failure in a pipeline stage should surface as the task failure
+		Exception exception = assertThrows(Exception.class, this::assemble);
+		assertInstanceOf(IOException.class, exception.getCause());
+		assertFalse(new File(outputDir, "annotations.yml").exists());
+		// Dataset files were packaged before the failure, the partial zip must be removed
+		assertFalse(new File(outputDir, "test-project-reqstool.zip").exists());
+	}
+
+	@Test
+	void testSharedServiceDiscoversTestResultsPerTask() throws Exception {
+		File outputDir = tempDir.resolve("build/reqstool").toFile();
+		Path datasetDir = Files.createDirectories(tempDir.resolve("reqstool"));
+		copyResource("zip/requirements.yml", datasetDir.resolve("requirements.yml"));
+		RequirementsToolService service = new RequirementsToolService() {
+			@Override
+			public BuildServiceParameters.None getParameters() {
+				return null;
+			}
+		};
+
+		try {
+			configureTask(outputDir, datasetDir.toFile());
+			task.getRequirementsToolService().set(service);
+			assemble();
+
+			// Test results written after the first run must still be packaged by the next
+			copyResource("zip/surefire-reports/TEST-com.reqstool.example.demo.SVCsTest.xml",
+					tempDir.resolve("build/test-results/test/TEST-com.reqstool.example.demo.SVCsTest.xml"));
+			assemble();
+		}
+		finally {
+			service.close();
+		}
+
+		try (ZipFile zip = new ZipFile(new File(outputDir, "test-project-reqstool.zip"))) {
+			assertNotNull(
+					zip.getEntry("test-project-reqstool/test_results/TEST-com.reqstool.example.demo.SVCsTest.xml"));
+		}
+	}
+
+	@Test
+	void testTestResultsDiscoveryFailureFailsTask() throws Exception {
+		File outputDir = tempDir.resolve("build/reqstool").toFile();
+		Path datasetDir = Files.createDirectories(tempDir.resolve("reqstool"));
+		copyResource("zip/requirements.yml", datasetDir.resolve("requirements.yml"));
+
+		configureTask(outputDir, datasetDir.toFile());
+		task.getProjectBasedir().set(tempDir.resolve("missing").toFile());
+
+		// Walk failure in the discovery stage should surface as the task failure
+		Exception exception = assertThrows(Exception.class, this::assemble);
+		assertInstanceOf(NoSuchFileException.class, exception.getCause());
+		assertFalse(new File(outputDir, "test-project-reqstool.zip").exists());
+	}
+
+	@Test
+	void testWalkTestResultsStopsWhenInterrupted() throws IOException {
+		Path testResultsDir = Files.createDirectories(tempDir.resolve("build/test-results/test"));
+		for (int i = 0; i < 10; i++) {
+			Files.write(testResultsDir.resolve("TEST-" + i + ".xml"), "<testsuite/>".getBytes());
+		}
+
+		List<Path> found = new ArrayList<>();
+		boolean interrupted;
+		Thread.currentThread().interrupt();
+		try {
+			RequirementsToolTask.walkTestResults(tempDir, Arrays.asList("build/test-results/**/*.xml"),
+					project.getLogger(), found::add);
+		}
+		finally {
+			interrupted = Thread.interrupted();
+		}
+
+		assertTrue(interrupted);
+		assertTrue(found.isEmpty());
+	}
+
+	/**
+	 * Runs the work the task submits to its worker on the calling thread, since the
+	 * worker infrastructure is not available to {@link ProjectBuilder} projects.
+	 */
+	private void assemble() {
+		AssembleRequirementsAction.Parameters parameters = project.getObjects()
+			.newInstance(AssembleRequirementsAction.Parameters.class);
+		task.configureParameters(parameters);
+		ProgressLoggerFactory progressLoggerFactory = ((ProjectInternal) project).getServices()
+			.get(ProgressLoggerFactory.class);
+		new ZipArtifactAssembler(parameters, progressLoggerFactory).assemble();
+	}
+
+	private void configureTask(File outputDir, File datasetDir) {
+		task.getSkip().set(false);
+		task.getSkipAssembleZipArtifact().set(false);
+		task.getProjectName().set("test-project");
+		task.getProjectVersion().set("1.0.0");
+		task.getProjectBasedir().set(tempDir.toFile());
+		task.getOutputDirectory().set(outputDir);
+		task.getDatasetPath().set(datasetDir);
+		task.getTestResults().set(java.util.Arrays.asList("build/test-results/**/*.xml"));
+		task.getZipFile().set(new File(outputDir, "test-project-reqstool.zip"));
+	}
+
+	private static void copyResource(String resource, Path target) throws Exception {
+		Files.createDirectories(target.getParent());
+		Path source = Paths.get(RequirementsToolTaskTest.class.getClassLoader().getResource(resource).toURI());
+		Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+	}
+
 }